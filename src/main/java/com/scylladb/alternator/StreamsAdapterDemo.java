@@ -15,16 +15,23 @@
 package com.scylladb.alternator;
 
 import static com.amazonaws.services.kinesis.clientlibrary.lib.worker.InitialPositionInStream.TRIM_HORIZON;
+import static com.scylladb.alternator.StreamsAdapterDemoHelper.countLeaseCheckpoints;
 import static com.scylladb.alternator.StreamsAdapterDemoHelper.createTable;
 import static com.scylladb.alternator.StreamsAdapterDemoHelper.describeTable;
 import static com.scylladb.alternator.StreamsAdapterDemoHelper.putItems;
 import static com.scylladb.alternator.StreamsAdapterDemoHelper.scanTable;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 import static net.sourceforge.argparse4j.impl.Arguments.storeTrue;
 
 import java.net.URI;
 import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
@@ -42,6 +49,7 @@ import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.amazonaws.services.dynamodbv2.streamsadapter.AmazonDynamoDBStreamsAdapterClient;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorFactory;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.InitialPositionInStream;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.KinesisClientLibConfiguration;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.Worker;
 
@@ -53,6 +61,9 @@ import net.sourceforge.argparse4j.inf.Namespace;
 public class StreamsAdapterDemo {
     private final static Logger LOGGER = LoggerFactory.getLogger("StreamsAdapterDemo");
 
+    // KCL application name, also the name of the lease table holding the checkpoints
+    private static final String APPLICATION_NAME = "streams-adapter-demo";
+
     /**
      * @param args
      */
@@ -81,6 +92,10 @@ public class StreamsAdapterDemo {
         parser.addArgument("--create").action(storeTrue()).help("Create source data set if not available");
         parser.addArgument("--threads").type(Integer.class).setDefault(Runtime.getRuntime().availableProcessors() * 2)
                 .help("Max worker threads");
+        parser.addArgument("--fast-start").action(storeTrue())
+                .help("Create tables in parallel and start the worker once the destination table is active");
+        parser.addArgument("--initial-position").choices("TRIM_HORIZON", "LATEST").setDefault(TRIM_HORIZON.name())
+                .help("Where to start shards that have no lease checkpoint yet");
         Namespace ns = null;
         try {
             ns = parser.parseArgs(args);
@@ -94,6 +109,9 @@ public class StreamsAdapterDemo {
         int timeoutInSeconds =  ns.getInt("timeout");
         int threads = ns.getInt("threads");
         boolean create_data = ns.getBoolean("create");
+        boolean fastStart = ns.getBoolean("fast_start");
+        InitialPositionInStream initialPosition = InitialPositionInStream.valueOf(ns.getString("initial_position"));
+        long startTime = System.nanoTime();
         AmazonDynamoDBClientBuilder b = AmazonDynamoDBClientBuilder.standard().withRegion(ns.getString("region"));
         AmazonDynamoDBStreamsClientBuilder sb = AmazonDynamoDBStreamsClientBuilder.standard().withRegion(ns.getString("region"));
         AmazonCloudWatch cloudWatchClient = null;
@@ -131,68 +149,107 @@ public class StreamsAdapterDemo {
         }
 
         ExecutorService xs = Executors.newWorkStealingPool(threads);
+        // sequential mode runs every table step inline, in the same order as before
+        Executor tableExecutor = fastStart ? xs : Runnable::run;
+        long initialPollMillis = fastStart ? 50 : 1000;
+        long clientsTime = System.nanoTime();
 
         try {
-            String streamArn = setUpTables(dynamoDBClient, tablePrefix);
-
-            KinesisClientLibConfiguration workerConfig = new KinesisClientLibConfiguration("streams-adapter-demo",
+            CompletableFuture<String> src = supplyAsync(() -> createTable(dynamoDBClient, srcTable, true),
+                    tableExecutor);
+            CompletableFuture<Long> streamArnTime = src.thenApply(arn -> System.nanoTime());
+            CompletableFuture<String> dest = supplyAsync(() -> createTable(dynamoDBClient, destTable, false),
+                    tableExecutor);
+            CompletableFuture<Long> srcActiveTime = src.thenApplyAsync(
+                    arn -> awaitTableActive(dynamoDBClient, srcTable, initialPollMillis), tableExecutor);
+            CompletableFuture<Long> destActiveTime = dest.thenApplyAsync(
+                    arn -> awaitTableActive(dynamoDBClient, destTable, initialPollMillis), tableExecutor);
+
+            // records are replicated into the destination table, so it has to be writable before the worker runs
+            await(src, destActiveTime);
+            String streamArn = src.join();
+
+            KinesisClientLibConfiguration workerConfig = new KinesisClientLibConfiguration(APPLICATION_NAME,
                     streamArn, b.getCredentials(), "streams-demo-worker").withParentShardPollIntervalMillis(1000)
                             .withCleanupLeasesUponShardCompletion(true).withFailoverTimeMillis(240000)
-                            .withRetryGetRecordsInSeconds(10).withInitialPositionInStream(TRIM_HORIZON)
+                            .withRetryGetRecordsInSeconds(10).withInitialPositionInStream(initialPosition)
                             .withIdleTimeBetweenReadsInMillis(1).withIdleMillisBetweenCalls(1)
                             .withShardSyncIntervalMillis(20000);
 
+            // the worker creates the first processor once it has initialized and taken a lease
+            CompletableFuture<Long> firstProcessorTime = new CompletableFuture<>();
+            IRecordProcessorFactory timedFactory = () -> {
+                firstProcessorTime.complete(System.nanoTime());
+                return recordProcessorFactory.createProcessor();
+            };
+
             LOGGER.info("Creating worker for stream: " + streamArn);
-            Worker worker = new Worker.Builder().recordProcessorFactory(recordProcessorFactory).config(workerConfig)
+            Worker worker = new Worker.Builder().recordProcessorFactory(timedFactory).config(workerConfig)
                     .kinesisClient(adapterClient).dynamoDBClient(dynamoDBClient).cloudWatchClient(cloudWatchClient)
                     .execService(xs).build();
 
             LOGGER.info("Starting worker...");
             Thread t = new Thread(worker);
             t.start();
+            long workerTime = System.nanoTime();
+
+            try {
+                runAsync(() -> logLeaseCheckpoints(dynamoDBClient, initialPosition), xs);
+
+                await(srcActiveTime);
+                LOGGER.info("Startup took {}ms (clients +{}ms, stream ARN +{}ms, dest active +{}ms, "
+                        + "worker started +{}ms, src active +{}ms)",
+                        millis(Math.max(workerTime, srcActiveTime.join()) - startTime),
+                        millis(clientsTime - startTime), millis(streamArnTime.join() - startTime),
+                        millis(destActiveTime.join() - startTime), millis(workerTime - startTime),
+                        millis(srcActiveTime.join() - startTime));
+                firstProcessorTime.thenAccept(time -> LOGGER.info("Worker initialized, first shard processor +{}ms",
+                        millis(time - startTime)));
+
+                if (keyNumber != 0 || create_data) {
+                    ScanResult sr = scanTable(dynamoDBClient, srcTable);
+                    ScanResult dr = null;
+
+                    if (sr.getCount() < keyNumber && create_data) {
+                        LOGGER.info("Adding {} records to source table...", sr.getCount() - keyNumber);
+                        putItems(dynamoDBClient, tablePrefix, sr.getCount(), keyNumber);
+                    }
 
-            if (keyNumber != 0 || create_data) {
-                ScanResult sr = scanTable(dynamoDBClient, srcTable);
-                ScanResult dr = null;
-
-                if (sr.getCount() < keyNumber && create_data) {
-                    LOGGER.info("Adding {} records to source table...", sr.getCount() - keyNumber);
-                    putItems(dynamoDBClient, tablePrefix, sr.getCount(), keyNumber);
-                }
-
-                for (;;) {
-                    Thread.sleep(10000);
+                    for (;;) {
+                        Thread.sleep(10000);
 
-                    sr = scanTable(dynamoDBClient, srcTable);
-                    LOGGER.info("Checking for source data...({}/{}): ", sr.getCount(), keyNumber);
+                        sr = scanTable(dynamoDBClient, srcTable);
+                        LOGGER.info("Checking for source data...({}/{}): ", sr.getCount(), keyNumber);
 
-                    dr = scanTable(dynamoDBClient, destTable);
-                    LOGGER.info("keys synced: {}/{}", dr.getCount(), keyNumber);
-                    if (!dr.getCount().equals(keyNumber)) {
-                        continue;
+                        dr = scanTable(dynamoDBClient, destTable);
+                        LOGGER.info("keys synced: {}/{}", dr.getCount(), keyNumber);
+                        if (!dr.getCount().equals(keyNumber)) {
+                            continue;
+                        }
+                        if (dr.getCount() >= keyNumber) {
+                            break;
+                        }
                     }
-                    if (dr.getCount() >= keyNumber) {
-                        break;
-                    }
-                }
 
-                if (create_data) {
-                    if (dr != null && sr.getItems().equals(dr.getItems())) {
-                        LOGGER.info("Scan result is equal.");
-                    } else {
-                        LOGGER.error("Tables are different!");
+                    if (create_data) {
+                        if (dr != null && sr.getItems().equals(dr.getItems())) {
+                            LOGGER.info("Scan result is equal.");
+                        } else {
+                            LOGGER.error("Tables are different!");
+                        }
                     }
                 }
-            }
 
-            if (timeoutInSeconds != 0) {
-                LOGGER.info("Sleeping for " + timeoutInSeconds + "sec");
-                Thread.sleep(timeoutInSeconds * 1000);
+                if (timeoutInSeconds != 0) {
+                    LOGGER.info("Sleeping for " + timeoutInSeconds + "sec");
+                    Thread.sleep(timeoutInSeconds * 1000);
 
+                }
+            } finally {
+                LOGGER.info("Shutting down Worker");
+                worker.shutdown();
+                t.join();
             }
-            LOGGER.info("Shutting down Worker");
-            worker.shutdown();
-            t.join();
 
             LOGGER.info("Done.");
         } finally {
@@ -200,34 +257,81 @@ public class StreamsAdapterDemo {
         }
     }
 
-    private static String setUpTables(AmazonDynamoDB dynamoDBClient, String tablePrefix) throws TimeoutException {
-        String srcTable = tablePrefix;
-        String destTable = tablePrefix + "-dest";
-        String streamArn = createTable(dynamoDBClient, srcTable, true);
-        createTable(dynamoDBClient, destTable, false);
+    /**
+     * Waits for all futures and rethrows the first failure, with the others added as suppressed.
+     */
+    private static void await(CompletableFuture<?>... futures) throws Exception {
+        Throwable error = null;
+        for (CompletableFuture<?> f : futures) {
+            Throwable t = f.handle((v, e) -> e).join();
+            if (t instanceof CompletionException && t.getCause() != null) {
+                t = t.getCause();
+            }
+            if (t == null) {
+                continue;
+            }
+            if (error == null) {
+                error = t;
+            } else if (error != t) {
+                error.addSuppressed(t);
+            }
+        }
+        if (error instanceof Exception) {
+            throw (Exception) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
 
-        awaitTableCreation(dynamoDBClient, srcTable);
-        awaitTableCreation(dynamoDBClient, destTable);
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static void logLeaseCheckpoints(AmazonDynamoDB dynamoDBClient, InitialPositionInStream initialPosition) {
+        try {
+            int checkpoints = countLeaseCheckpoints(dynamoDBClient, APPLICATION_NAME);
+            LOGGER.info("Lease table {} holds {} checkpoints, shards without one start at {}", APPLICATION_NAME,
+                    checkpoints, initialPosition);
+        } catch (Exception e) {
+            LOGGER.warn("Could not read lease table " + APPLICATION_NAME, e);
+        }
+    }
 
-        return streamArn;
+    /**
+     * @return {@link System#nanoTime()} at which the table was seen ACTIVE
+     */
+    private static long awaitTableActive(AmazonDynamoDB dynamoDBClient, String tableName, long initialDelayMillis) {
+        try {
+            awaitTableCreation(dynamoDBClient, tableName, initialDelayMillis, 1000);
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (TimeoutException e) {
+            throw new CompletionException(e);
+        }
     }
 
-    private static void awaitTableCreation(AmazonDynamoDB dynamoDBClient, String tableName) throws TimeoutException {
+    /**
+     * Polls until the table is ACTIVE, doubling the delay between polls up to maxDelayMillis.
+     */
+    private static void awaitTableCreation(AmazonDynamoDB dynamoDBClient, String tableName, long initialDelayMillis,
+            long maxDelayMillis) throws TimeoutException, InterruptedException {
+        long delayMillis = initialDelayMillis;
         Integer retries = 0;
         Boolean created = false;
         while (!created && retries < 100) {
             DescribeTableResult result = describeTable(dynamoDBClient, tableName);
             created = result.getTable().getTableStatus().equals("ACTIVE");
             if (created) {
-                LOGGER.info("Table is active.");
+                LOGGER.info("Table {} is active.", tableName);
                 return;
             } else {
                 retries++;
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    // do nothing
-                }
+                Thread.sleep(delayMillis);
+                delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
             }
         }
         throw new TimeoutException("Timeout after table creation.");
@@ -18,6 +18,7 @@ import static java.util.stream.Collectors.toList;
 import static java.util.stream.Stream.concat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -41,6 +42,7 @@ import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.PutRequest;
 import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.amazonaws.services.dynamodbv2.model.StreamSpecification;
@@ -50,6 +52,10 @@ import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 
 public class StreamsAdapterDemoHelper {
 
+    // Checkpoint values the KCL stores for leases that have not processed any record yet
+    private static final List<String> SENTINEL_CHECKPOINTS = Arrays.asList("TRIM_HORIZON", "LATEST", "AT_TIMESTAMP",
+            "SHARD_END");
+
     /**
      * @return StreamArn
      */
@@ -90,6 +96,18 @@ public class StreamsAdapterDemoHelper {
         return client.describeTable(new DescribeTableRequest().withTableName(tableName));
     }
 
+    /**
+     * @return number of leases in the KCL lease table that hold a sequence number checkpoint
+     */
+    public static int countLeaseCheckpoints(AmazonDynamoDB client, String leaseTable) {
+        try {
+            return (int) scanTable(client, leaseTable).getItems().stream().map(i -> i.get("checkpoint"))
+                    .filter(v -> v != null && v.getS() != null && !SENTINEL_CHECKPOINTS.contains(v.getS())).count();
+        } catch (ResourceNotFoundException e) {
+            return 0;
+        }
+    }
+
     public static ScanResult scanTable(AmazonDynamoDB dynamoDBClient, String tableName) {
         ScanResult r = dynamoDBClient.scan(new ScanRequest().withTableName(tableName));
         while (r.getLastEvaluatedKey() != null && !r.getLastEvaluatedKey().isEmpty()) {